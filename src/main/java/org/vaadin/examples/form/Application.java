@@ -2,16 +2,28 @@ package org.vaadin.examples.form;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * The entry point of the Spring Boot application.
  */
 @SpringBootApplication
+@EnableScheduling
 public class Application extends SpringBootServletInitializer {
 
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
 
+    @Bean
+    public FilterRegistrationBean<BuildResourceCacheFilter> buildResourceCacheFilter() {
+        FilterRegistrationBean<BuildResourceCacheFilter> registration = new FilterRegistrationBean<>(
+                new BuildResourceCacheFilter());
+        registration.addUrlPatterns("/VAADIN/build/*");
+        return registration;
+    }
+
 }
@@ -0,0 +1,183 @@
+package org.vaadin.examples.form;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Lets browsers cache the frontend bundle for a year.
+ * <p>
+ * The files in <code>VAADIN/build</code> have a content hash in their name, so
+ * a new build produces new URLs and the old content never has to be
+ * revalidated. Vaadin serves them (and their precompressed variants) with a
+ * short default cache time, which we replace here for successful responses.
+ * Registered for <code>/VAADIN/build/*</code> in {@link Application}.
+ */
+public class BuildResourceCacheFilter extends OncePerRequestFilter {
+
+    static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /**
+     * Matches file names like <code>indexhtml-DnLi9wtj.js</code>.
+     */
+    private static final Pattern HASHED_FILE = Pattern.compile(".*-[\\w-]{8}\\.[a-z0-9]+$");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!HASHED_FILE.matcher(request.getRequestURI()).matches()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CacheHeaderResponse wrapper = new CacheHeaderResponse(response);
+        chain.doFilter(request, wrapper);
+        wrapper.applyCacheHeaders(wrapper.getStatus());
+    }
+
+    /**
+     * Holds back the caching headers set further down the chain until the status
+     * is known, which is at the latest when the body is written or the response
+     * is committed. Only a successful response gets the long-lived headers; an
+     * error must not stick in the browser cache for a year.
+     */
+    private static class CacheHeaderResponse extends HttpServletResponseWrapper {
+
+        /**
+         * The held back header calls, <code>null</code> once the headers have
+         * been applied.
+         */
+        private List<Runnable> heldHeaders = new ArrayList<>();
+
+        CacheHeaderResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!hold(name, () -> super.setHeader(name, value))) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!hold(name, () -> super.addHeader(name, value))) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            if (!hold(name, () -> super.setDateHeader(name, date))) {
+                super.setDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            if (!hold(name, () -> super.addDateHeader(name, date))) {
+                super.addDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (!hold(name, () -> super.setIntHeader(name, value))) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (!hold(name, () -> super.addIntHeader(name, value))) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            applyCacheHeaders(getStatus());
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            applyCacheHeaders(getStatus());
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            applyCacheHeaders(getStatus());
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            applyCacheHeaders(sc);
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            applyCacheHeaders(sc);
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            applyCacheHeaders(SC_FOUND);
+            super.sendRedirect(location);
+        }
+
+        private boolean hold(String name, Runnable headerCall) {
+            if (heldHeaders == null || !isCacheHeader(name)) {
+                return false;
+            }
+            heldHeaders.add(headerCall);
+            return true;
+        }
+
+        /**
+         * Sets the long-lived headers for a successful response, or the held back
+         * ones for anything else. Only the first call has an effect.
+         */
+        void applyCacheHeaders(int status) {
+            if (heldHeaders == null) {
+                return;
+            }
+            List<Runnable> held = heldHeaders;
+            heldHeaders = null;
+            if (status != SC_OK && status != SC_NOT_MODIFIED) {
+                held.forEach(Runnable::run);
+                return;
+            }
+            setHeader("Cache-Control", CACHE_CONTROL);
+            // the same URL may be served compressed or not, depending on the browser
+            if (getHeaders("Vary").stream().noneMatch(v -> v.toLowerCase(Locale.ROOT).contains("accept-encoding"))) {
+                addHeader("Vary", "Accept-Encoding");
+            }
+        }
+    }
+
+    /**
+     * Checks if a header set further down the chain would contradict the ones
+     * set by this filter for a successful response.
+     */
+    private static boolean isCacheHeader(String name) {
+        return "Cache-Control".equalsIgnoreCase(name) || "Expires".equalsIgnoreCase(name)
+                || "Pragma".equalsIgnoreCase(name);
+    }
+}
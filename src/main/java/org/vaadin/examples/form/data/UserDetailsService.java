@@ -1,20 +1,40 @@
 package org.vaadin.examples.form.data;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
+import org.vaadin.examples.form.outbox.OutboxLog;
+import org.vaadin.examples.form.outbox.SignupEvent;
 
 @Service
 public class UserDetailsService implements Serializable {
 
     private String previousHandle;
 
+    /**
+     * This service is referenced from the UI, which is serialized with the
+     * session. The log itself is not serializable, but the provider is: after
+     * deserialization it looks the bean up again from the application context.
+     */
+    private final ObjectProvider<OutboxLog> outbox;
+
+    public UserDetailsService(ObjectProvider<OutboxLog> outbox) {
+        this.outbox = outbox;
+    }
+
     /**
      * 'Stores' the bean.
      * <p>
      * In reality it just throws ServiceException from time to time.
+     * <p>
+     * Follow-up work like the welcome message is not done here; a
+     * {@link SignupEvent} is appended to the outbox instead and delivered in the
+     * background. With a real database, the event would be written in the same
+     * transaction as the user.
      */
     public void store(UserDetails userDetails) throws ServiceException {
 
@@ -25,6 +45,12 @@ public class UserDetailsService implements Serializable {
             previousHandle = userDetails.getHandle();
             throw new ServiceException("This exception simulates an error in the backend, and is intentional. Please try to submit the form again.");
         }
+
+        try {
+            outbox.getObject().append(SignupEvent.of(userDetails));
+        } catch (IOException e) {
+            throw new ServiceException("Could not record the signup: " + e.getMessage());
+        }
     }
 
     /**
@@ -0,0 +1,29 @@
+package org.vaadin.examples.form.outbox;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports signups to analytics.
+ * <p>
+ * In this example it just logs the number of signups in each batch.
+ */
+@Component
+public class AnalyticsConsumer implements OutboxConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalyticsConsumer.class);
+
+    @Override
+    public String getName() {
+        return "analytics";
+    }
+
+    @Override
+    public void accept(List<SignupEvent> events) {
+        long marketing = events.stream().filter(SignupEvent::isAllowsMarketing).count();
+        LOGGER.info("Recorded {} signups, {} allowing marketing", events.size(), marketing);
+    }
+}
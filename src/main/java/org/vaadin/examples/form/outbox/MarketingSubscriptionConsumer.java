@@ -0,0 +1,37 @@
+package org.vaadin.examples.form.outbox;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds users who allowed it to the marketing list.
+ * <p>
+ * In this example it just logs; this is where you'd call your newsletter
+ * service, preferably with a single request for the whole batch.
+ */
+@Component
+public class MarketingSubscriptionConsumer implements OutboxConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketingSubscriptionConsumer.class);
+
+    @Override
+    public String getName() {
+        return "marketing-subscription";
+    }
+
+    @Override
+    public void accept(List<SignupEvent> events) {
+        List<String> emails = events.stream()
+                .filter(SignupEvent::isAllowsMarketing)
+                .map(SignupEvent::getEmail)
+                .filter(email -> email != null && !email.isEmpty())
+                .collect(Collectors.toList());
+        if (!emails.isEmpty()) {
+            LOGGER.info("Subscribing {} to the marketing list", emails);
+        }
+    }
+}
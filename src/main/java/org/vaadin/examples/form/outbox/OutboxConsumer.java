@@ -0,0 +1,27 @@
+package org.vaadin.examples.form.outbox;
+
+import java.util.List;
+
+/**
+ * Follow-up work for signups. Every Spring bean implementing this interface is
+ * fed the events from the {@link OutboxLog} by the {@link OutboxDispatcher}.
+ * <p>
+ * Delivery is at-least-once: if {@link #accept(List)} throws, the same batch is
+ * offered again later, and a crash after a successful call but before the
+ * checkpoint is written causes a redelivery too. Implementations should
+ * therefore be idempotent. An event that keeps failing on its own ends up in the
+ * dead letters of the consumer, see {@link OutboxDispatcher}.
+ */
+public interface OutboxConsumer {
+
+    /**
+     * A stable, file name safe name used for storing the checkpoint of this
+     * consumer. Changing it restarts delivery from the oldest retained event.
+     */
+    String getName();
+
+    /**
+     * Handles a batch of events, in the order they were stored.
+     */
+    void accept(List<SignupEvent> events) throws Exception;
+}
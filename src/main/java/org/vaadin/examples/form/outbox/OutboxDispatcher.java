@@ -0,0 +1,182 @@
+package org.vaadin.examples.form.outbox;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delivers the events in the {@link OutboxLog} to all {@link OutboxConsumer}s in
+ * the background, so that the signup itself doesn't have to wait for them.
+ * <p>
+ * Each consumer is handled independently: it gets batches of up to
+ * {@link #BATCH_SIZE} events starting from its own checkpoint, and the
+ * checkpoint is moved forward only after the batch was accepted.
+ * <p>
+ * A failing batch is retried with exponential backoff. If it still fails after
+ * {@link #MAX_ATTEMPTS} attempts, its events are delivered one at a time to find
+ * the broken one, again with backoff. Only an event that fails on its own
+ * {@link #MAX_ATTEMPTS} times is skipped, and it is kept as a dead letter that
+ * can be replayed with {@link #replayDeadLetters(String)}. The retry state is
+ * stored in the log, so a restart doesn't reset it.
+ */
+@Component
+public class OutboxDispatcher {
+
+    static final int BATCH_SIZE = 100;
+    static final int MAX_ATTEMPTS = 10;
+    static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+    /**
+     * Number of failed attempts at the current checkpoint.
+     */
+    static final String FAILED_ATTEMPTS = "failed-attempts";
+
+    /**
+     * Offset up to which events are delivered one at a time, 0 when not
+     * isolating.
+     */
+    static final String ISOLATE_UNTIL = "isolate-until";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxDispatcher.class);
+
+    private final OutboxLog log;
+    private final List<OutboxConsumer> consumers;
+    private final Clock clock;
+
+    /**
+     * When each consumer may be retried. Not worth persisting: after a restart,
+     * retrying right away is fine.
+     */
+    private final Map<String, Instant> retryAt = new HashMap<>();
+
+    @Autowired
+    public OutboxDispatcher(OutboxLog log, List<OutboxConsumer> consumers) {
+        this(log, consumers, Clock.systemUTC());
+    }
+
+    OutboxDispatcher(OutboxLog log, List<OutboxConsumer> consumers, Clock clock) {
+        this.log = log;
+        this.consumers = consumers;
+        this.clock = clock;
+    }
+
+    /**
+     * Delivers all pending events. Spring never runs this concurrently with
+     * itself, as the next run is only scheduled when the previous one is done.
+     */
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:1000}")
+    public synchronized void dispatch() {
+        try {
+            long oldestCheckpoint = Long.MAX_VALUE;
+            for (OutboxConsumer consumer : consumers) {
+                oldestCheckpoint = Math.min(oldestCheckpoint, dispatch(consumer));
+            }
+            if (!consumers.isEmpty()) {
+                log.deleteBefore(oldestCheckpoint);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Reading the outbox failed", e);
+        }
+    }
+
+    /**
+     * Delivers the events the given consumer gave up on once more, in a single
+     * batch. The dead letters are removed only if the consumer accepts them.
+     */
+    public synchronized void replayDeadLetters(String consumerName) throws Exception {
+        OutboxConsumer consumer = consumers.stream()
+                .filter(c -> c.getName().equals(consumerName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No outbox consumer named " + consumerName));
+        List<OutboxRecord> deadLetters = log.readDeadLetters(consumerName);
+        if (!deadLetters.isEmpty()) {
+            consumer.accept(events(deadLetters));
+            log.deleteDeadLetters(consumerName);
+        }
+    }
+
+    /**
+     * Delivers pending events to a single consumer until it is up to date or
+     * delivery fails.
+     *
+     * @return the checkpoint of the consumer after delivery
+     */
+    private long dispatch(OutboxConsumer consumer) throws IOException {
+        String name = consumer.getName();
+        long checkpoint = log.readCheckpoint(name);
+        Instant next = retryAt.get(name);
+        if (next != null && clock.instant().isBefore(next)) {
+            return checkpoint;
+        }
+        retryAt.remove(name);
+
+        int attempts = (int) log.readState(name, FAILED_ATTEMPTS);
+        long isolateUntil = log.readState(name, ISOLATE_UNTIL);
+        List<OutboxRecord> batch;
+        while (!(batch = log.read(checkpoint, checkpoint < isolateUntil ? 1 : BATCH_SIZE)).isEmpty()) {
+            boolean isolating = checkpoint < isolateUntil;
+            long end = batch.get(batch.size() - 1).getOffset() + 1;
+            try {
+                consumer.accept(events(batch));
+            } catch (Exception e) {
+                attempts++;
+                if (attempts < MAX_ATTEMPTS) {
+                    Duration backoff = backoff(attempts);
+                    LOGGER.warn("Consumer {} failed at offset {} (attempt {}/{}), retrying in {}", name, checkpoint,
+                            attempts, MAX_ATTEMPTS, backoff, e);
+                    log.writeState(name, FAILED_ATTEMPTS, attempts);
+                    retryAt.put(name, clock.instant().plus(backoff));
+                    return checkpoint;
+                }
+                attempts = 0;
+                log.writeState(name, FAILED_ATTEMPTS, attempts);
+                if (!isolating) {
+                    LOGGER.warn("Consumer {} failed at offset {} {} times, delivering events up to offset {} one "
+                            + "at a time", name, checkpoint, MAX_ATTEMPTS, end - 1, e);
+                    isolateUntil = end;
+                    log.writeState(name, ISOLATE_UNTIL, isolateUntil);
+                    continue;
+                }
+                LOGGER.error("Consumer {} failed at offset {} {} times, moving the event to the dead letters", name,
+                        checkpoint, MAX_ATTEMPTS, e);
+                log.appendDeadLetter(name, batch.get(0));
+            }
+            checkpoint = end;
+            log.writeCheckpoint(name, checkpoint);
+            if (attempts > 0) {
+                attempts = 0;
+                log.writeState(name, FAILED_ATTEMPTS, attempts);
+            }
+            if (isolateUntil > 0 && checkpoint >= isolateUntil) {
+                isolateUntil = 0;
+                log.writeState(name, ISOLATE_UNTIL, isolateUntil);
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Returns the delay before the next attempt: doubles with every failed
+     * attempt, up to {@link #MAX_BACKOFF}.
+     */
+    static Duration backoff(int attempts) {
+        Duration backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(attempts - 1, 30));
+        return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+    }
+
+    private static List<SignupEvent> events(List<OutboxRecord> records) {
+        return records.stream().map(OutboxRecord::getEvent).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,408 @@
+package org.vaadin.examples.form.outbox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A local, append-only log of {@link SignupEvent}s, split into segment files.
+ * <p>
+ * Every event gets an increasing offset. Each record on disk is stored as
+ * <code>[length][crc32][payload]</code> and forced to disk before
+ * {@link #append(SignupEvent)} returns, so an event that has been appended
+ * survives a crash. A record that was only partially written when the process
+ * died fails the length or checksum test and is cut off on the next start.
+ * <p>
+ * A damaged record anywhere else means the disk or the file was tampered with;
+ * in that case reading fails with an exception instead of silently skipping
+ * committed events.
+ * <p>
+ * The log also keeps the checkpoint (next offset to deliver) and the retry state
+ * of each {@link OutboxConsumer}, and the events a consumer gave up on
+ * ("dead letters") so that they can be replayed later. Segments that every
+ * consumer has moved past are deleted.
+ * <p>
+ * The directory must be on persistent storage; a temporary directory that is
+ * cleaned on reboot would defeat the purpose.
+ */
+@Component
+public class OutboxLog {
+
+    /**
+     * Size after which a new segment file is started.
+     */
+    static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DEAD_LETTER_SUFFIX = ".dead";
+
+    /**
+     * Size of the length and checksum fields in front of each record.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private FileChannel activeSegment;
+    private long nextOffset;
+
+    @Autowired
+    public OutboxLog(@Value("${outbox.directory}") String directory) throws IOException {
+        this(Paths.get(directory), DEFAULT_SEGMENT_SIZE);
+    }
+
+    OutboxLog(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends an event to the log and waits until it is on disk. If that fails,
+     * whatever was written of the record is cut off again, so the log stays
+     * usable and the offset is not used up.
+     *
+     * @return the offset of the event
+     */
+    public synchronized long append(SignupEvent event) throws IOException {
+        ByteBuffer record = encodeRecord(encodeEvent(event, null));
+        if (activeSegment.size() > 0 && activeSegment.size() + record.remaining() > segmentSize) {
+            activeSegment.close();
+            openSegment(nextOffset);
+        }
+        long position = activeSegment.position();
+        try {
+            write(activeSegment, record);
+        } catch (IOException e) {
+            // the caller treats the event as not stored, so neither a partial
+            // record nor an unacknowledged complete one may stay in the log
+            try {
+                activeSegment.truncate(position);
+                activeSegment.position(position);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        return nextOffset++;
+    }
+
+    /**
+     * Reads up to <code>max</code> records starting from the given offset.
+     *
+     * @return the records, or an empty list if there is nothing at or after the
+     *         offset yet
+     */
+    public List<OutboxRecord> read(long fromOffset, int max) throws IOException {
+        long endOffset;
+        synchronized (this) {
+            endOffset = nextOffset;
+        }
+        List<OutboxRecord> records = new ArrayList<>();
+        List<Long> segments = listSegments();
+        for (int i = 0; i < segments.size() && records.size() < max && fromOffset < endOffset; i++) {
+            long base = segments.get(i);
+            long nextBase = i + 1 < segments.size() ? segments.get(i + 1) : endOffset;
+            if (nextBase <= fromOffset) {
+                continue;
+            }
+            try (DataInputStream in = openForReading(base)) {
+                for (long offset = base; offset < nextBase && offset < endOffset && records.size() < max; offset++) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) {
+                        // everything before endOffset has been forced to disk
+                        throw new IOException(String.format("Corrupted record at offset %d in %s", offset,
+                                segmentPath(base)));
+                    }
+                    if (offset >= fromOffset) {
+                        records.add(new OutboxRecord(offset, decodeEvent(payload)));
+                    }
+                }
+            }
+            fromOffset = Math.max(fromOffset, nextBase);
+        }
+        return records;
+    }
+
+    /**
+     * Returns the next offset to deliver to the given consumer, 0 if it hasn't
+     * stored a checkpoint yet.
+     */
+    public long readCheckpoint(String consumer) throws IOException {
+        return readState(consumer, CHECKPOINT);
+    }
+
+    /**
+     * Stores the next offset to deliver to the given consumer.
+     */
+    public void writeCheckpoint(String consumer, long offset) throws IOException {
+        writeState(consumer, CHECKPOINT, offset);
+    }
+
+    /**
+     * Returns a value the {@link OutboxDispatcher} keeps for the given consumer,
+     * 0 if it hasn't been stored.
+     */
+    public long readState(String consumer, String key) throws IOException {
+        Path file = statePath(consumer, key);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(file, StandardCharsets.US_ASCII).trim());
+    }
+
+    /**
+     * Stores a value the {@link OutboxDispatcher} keeps for the given consumer.
+     * The file is replaced atomically, so a crash leaves either the old or the
+     * new value.
+     */
+    public void writeState(String consumer, String key, long value) throws IOException {
+        Path file = statePath(consumer, key);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, ByteBuffer.wrap(Long.toString(value).getBytes(StandardCharsets.US_ASCII)));
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stores an event the given consumer gave up on, so that it can be replayed
+     * with {@link OutboxDispatcher#replayDeadLetters(String)} once the problem
+     * has been fixed.
+     */
+    public synchronized void appendDeadLetter(String consumer, OutboxRecord record) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(consumer + DEAD_LETTER_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            write(channel, encodeRecord(encodeEvent(record.getEvent(), record.getOffset())));
+        }
+    }
+
+    /**
+     * Returns the events the given consumer gave up on, oldest first.
+     */
+    public synchronized List<OutboxRecord> readDeadLetters(String consumer) throws IOException {
+        Path file = directory.resolve(consumer + DEAD_LETTER_SUFFIX);
+        List<OutboxRecord> records = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                records.add(new OutboxRecord(record.readLong(), SignupEvent.readFrom(record)));
+            }
+        }
+        return records;
+    }
+
+    public synchronized void deleteDeadLetters(String consumer) throws IOException {
+        Files.deleteIfExists(directory.resolve(consumer + DEAD_LETTER_SUFFIX));
+    }
+
+    /**
+     * Deletes the segments that only contain records before the given offset.
+     * The segment currently written to is always kept.
+     */
+    public synchronized void deleteBefore(long offset) throws IOException {
+        List<Long> segments = listSegments();
+        for (int i = 0; i + 1 < segments.size() && segments.get(i + 1) <= offset; i++) {
+            Files.deleteIfExists(segmentPath(segments.get(i)));
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        activeSegment.close();
+    }
+
+    /**
+     * Opens the newest segment for appending, cutting off a partially written
+     * record at its end if the previous run crashed in the middle of a write.
+     *
+     * @throws IOException
+     *             if a damaged record is followed by more data, as cutting it
+     *             off would throw away events that were committed
+     */
+    private void recover() throws IOException {
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(0);
+            return;
+        }
+        long base = segments.get(segments.size() - 1);
+        Path path = segmentPath(base);
+        long validBytes = 0;
+        long count = 0;
+        try (DataInputStream in = openForReading(base)) {
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                validBytes += RECORD_HEADER_SIZE + payload.length;
+                count++;
+            }
+        }
+        if (validBytes < Files.size(path) && !isTornTail(path, validBytes)) {
+            throw new IOException(String.format(
+                    "Corrupted record at offset %d in %s is followed by more records, refusing to truncate",
+                    base + count, path));
+        }
+        openSegment(base);
+        activeSegment.truncate(validBytes);
+        activeSegment.position(validBytes);
+        nextOffset = base + count;
+    }
+
+    /**
+     * Checks if the invalid data from the given position on is what an
+     * interrupted {@link #append(SignupEvent)} leaves behind: a record that
+     * reaches the end of the file, or zeros the file system allocated but never
+     * got to fill.
+     */
+    private static boolean isTornTail(Path path, long position) throws IOException {
+        byte[] tail;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - position));
+            channel.read(buffer, position);
+            tail = buffer.array();
+        }
+        if (tail.length < RECORD_HEADER_SIZE) {
+            return true;
+        }
+        int length = ByteBuffer.wrap(tail).getInt();
+        if (length > 0 && (long) RECORD_HEADER_SIZE + length >= tail.length) {
+            return true;
+        }
+        for (byte b : tail) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void openSegment(long baseOffset) throws IOException {
+        activeSegment = openChannel(segmentPath(baseOffset));
+        activeSegment.position(activeSegment.size());
+    }
+
+    /**
+     * Opens a segment file for writing. Overridden in tests to simulate write
+     * errors.
+     */
+    FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads the payload of the next record, or returns <code>null</code> at the
+     * end of the file or at a damaged or partially written record.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0) {
+                // append() never writes empty records
+                return null;
+            }
+            byte[] payload = in.readNBytes(length);
+            if (payload.length < length) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes an event, prefixed with its original offset for dead letters.
+     */
+    private static byte[] encodeEvent(SignupEvent event, Long offset) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        if (offset != null) {
+            out.writeLong(offset);
+        }
+        event.writeTo(out);
+        return payload.toByteArray();
+    }
+
+    private static SignupEvent decodeEvent(byte[] payload) throws IOException {
+        return SignupEvent.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private static ByteBuffer encodeRecord(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the buffer and waits until it is on disk.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private DataInputStream openForReading(long baseOffset) throws IOException {
+        InputStream in = Files.newInputStream(segmentPath(baseOffset));
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+
+    private Path statePath(String consumer, String key) {
+        return directory.resolve(consumer + "." + key);
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Returns the base offsets of the segment files, oldest first.
+     */
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.vaadin.examples.form.outbox;
+
+/**
+ * A {@link SignupEvent} together with its position in the {@link OutboxLog}.
+ */
+public class OutboxRecord {
+
+    private final long offset;
+    private final SignupEvent event;
+
+    public OutboxRecord(long offset, SignupEvent event) {
+        this.offset = offset;
+        this.event = event;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public SignupEvent getEvent() {
+        return event;
+    }
+}
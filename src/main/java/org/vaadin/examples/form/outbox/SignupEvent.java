@@ -0,0 +1,88 @@
+package org.vaadin.examples.form.outbox;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+
+import org.vaadin.examples.form.data.UserDetails;
+
+/**
+ * Event that is written to the {@link OutboxLog} when a user has signed up.
+ * <p>
+ * Only carries the data the follow-up work needs; the password and avatar are
+ * intentionally left out.
+ */
+public class SignupEvent {
+
+    private final Instant timestamp;
+    private final String handle;
+    private final String firstname;
+    private final String lastname;
+    private final String email;
+    private final boolean allowsMarketing;
+
+    public SignupEvent(Instant timestamp, String handle, String firstname, String lastname, String email,
+            boolean allowsMarketing) {
+        this.timestamp = timestamp;
+        this.handle = handle;
+        this.firstname = firstname;
+        this.lastname = lastname;
+        this.email = email;
+        this.allowsMarketing = allowsMarketing;
+    }
+
+    public static SignupEvent of(UserDetails userDetails) {
+        return new SignupEvent(Instant.now(), userDetails.getHandle(), userDetails.getFirstname(),
+                userDetails.getLastname(), userDetails.getEmail(), userDetails.isAllowsMarketing());
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public String getHandle() {
+        return handle;
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public String getLastname() {
+        return lastname;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public boolean isAllowsMarketing() {
+        return allowsMarketing;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(timestamp.toEpochMilli());
+        writeNullable(out, handle);
+        writeNullable(out, firstname);
+        writeNullable(out, lastname);
+        writeNullable(out, email);
+        out.writeBoolean(allowsMarketing);
+    }
+
+    static SignupEvent readFrom(DataInput in) throws IOException {
+        return new SignupEvent(Instant.ofEpochMilli(in.readLong()), readNullable(in), readNullable(in),
+                readNullable(in), readNullable(in), in.readBoolean());
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,32 @@
+package org.vaadin.examples.form.outbox;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends a welcome message to new users.
+ * <p>
+ * In this example it just logs; this is where you'd call your mail service.
+ */
+@Component
+public class WelcomeMessageConsumer implements OutboxConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WelcomeMessageConsumer.class);
+
+    @Override
+    public String getName() {
+        return "welcome-message";
+    }
+
+    @Override
+    public void accept(List<SignupEvent> events) {
+        for (SignupEvent event : events) {
+            if (event.getEmail() != null && !event.getEmail().isEmpty()) {
+                LOGGER.info("Sending welcome message to {} <{}>", event.getFirstname(), event.getEmail());
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 
 import org.vaadin.examples.form.data.AvatarImage;
+import org.vaadin.examples.form.ui.components.ImageSniffingOutputStream.ImageRejectedException;
 
 import com.vaadin.flow.component.customfield.CustomField;
 import com.vaadin.flow.component.html.Div;
@@ -32,6 +33,11 @@ public class AvatarField extends CustomField<AvatarImage> {
      */
     private ByteArrayOutputStream outputStream;
 
+    /**
+     * Checks the upload content before it reaches the outputStream
+     */
+    private ImageSniffingOutputStream sniffingStream;
+
     private Image currentAvatar;
     private Upload upload;
 
@@ -59,8 +65,9 @@ public class AvatarField extends CustomField<AvatarImage> {
         upload.addFailedListener(e -> setFailed(e.getReason().getMessage()));
         upload.addFileRejectedListener(e -> setFailed(e.getErrorMessage()));
 
-        // only allow images to be uploaded
-        upload.setAcceptedFileTypes("image/*");
+        // only allow the image types we can check. This is only a hint for the
+        // browser, the actual content is checked in receiveUpload()
+        upload.setAcceptedFileTypes("image/png", "image/jpeg", "image/gif", "image/webp");
 
         // only allow single file at a time
         upload.setMaxFiles(1);
@@ -111,9 +118,11 @@ public class AvatarField extends CustomField<AvatarImage> {
         value.setName(fileName);
         value.setMime(mimeType);
 
-        // set up receiving Stream
+        // set up receiving Stream. The sniffing stream aborts the upload as soon
+        // as the first bytes show that the content isn't an acceptable image.
         outputStream = new ByteArrayOutputStream();
-        return outputStream;
+        sniffingStream = new ImageSniffingOutputStream(outputStream);
+        return sniffingStream;
     }
 
     /**
@@ -121,7 +130,17 @@ public class AvatarField extends CustomField<AvatarImage> {
      */
     private void uploadSuccess(SucceededEvent e) {
 
-        // store the binary data into our bean
+        // the compression ratio can only be checked now that we have all the data
+        try {
+            sniffingStream.verify();
+        } catch (ImageRejectedException ex) {
+            setFailed(ex.getMessage());
+            return;
+        }
+
+        // store the binary data into our bean, trusting the detected type rather
+        // than the one sent by the browser
+        value.setMime(sniffingStream.getMimeType());
         value.setImage(outputStream.toByteArray());
 
         // fire value changes so that Binder can do its thing
@@ -0,0 +1,348 @@
+package org.vaadin.examples.form.ui.components;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An {@link OutputStream} wrapper that inspects the first bytes of an upload
+ * before passing them on to the wrapped stream.
+ * <p>
+ * The browser-supplied MIME type and the <code>accept</code> attribute of the
+ * upload can't be trusted, so we look at the actual content instead: the
+ * signature ("magic bytes") of PNG, JPEG, GIF and WebP images, and the image
+ * dimensions from their headers. If the content doesn't look like an image we
+ * accept, an {@link ImageRejectedException} is thrown from {@link #write}, which
+ * makes Vaadin abort the transfer right away instead of receiving the whole
+ * file first.
+ * <p>
+ * The compression ratio can only be checked once the whole file has been
+ * received, so call {@link #verify()} when the upload has succeeded.
+ */
+public class ImageSniffingOutputStream extends FilterOutputStream {
+
+    /**
+     * Maximum width or height of an accepted image, in pixels.
+     */
+    public static final int MAX_DIMENSION = 4096;
+
+    /**
+     * Maximum number of pixels per byte of file content. Real avatar pictures
+     * stay far below this; anything above it is most likely a decompression bomb,
+     * a tiny file that expands into a huge bitmap when decoded.
+     */
+    public static final int MAX_PIXELS_PER_BYTE = 1024;
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    /**
+     * Enough for the fixed size headers of all formats. JPEG files may have
+     * metadata segments (EXIF, ICC profiles) of up to 64 KB each before the frame
+     * header, but those are skipped over without buffering them.
+     */
+    private final byte[] header = new byte[64];
+    private int headerLength;
+
+    /**
+     * Whether we are walking the JPEG marker segments. The header buffer then
+     * only holds the bytes that haven't been walked past yet.
+     */
+    private boolean jpeg;
+
+    /**
+     * Where the next JPEG marker starts in the header buffer.
+     */
+    private int markerPos;
+
+    /**
+     * How many bytes of the current JPEG segment are left to skip over.
+     */
+    private long skip;
+
+    private boolean accepted;
+    private long bytesWritten;
+
+    private String mimeType;
+    private int width;
+    private int height;
+
+    public ImageSniffingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Returns the MIME type detected from the content, or <code>null</code> if
+     * it hasn't been detected yet.
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        bytesWritten += len;
+        while (!accepted && len > 0) {
+            if (skip > 0) {
+                // the body of a JPEG segment we're not interested in
+                int n = (int) Math.min(skip, len);
+                out.write(b, off, n);
+                skip -= n;
+                off += n;
+                len -= n;
+                continue;
+            }
+
+            // buffer until we've seen enough of the header to make a decision
+            int n = Math.min(header.length - headerLength, len);
+            System.arraycopy(b, off, header, headerLength, n);
+            headerLength += n;
+            off += n;
+            len -= n;
+
+            if (sniff()) {
+                checkDimensions();
+                accepted = true;
+                out.write(header, 0, headerLength);
+            } else if (headerLength == header.length) {
+                throw new ImageRejectedException("Could not find the image dimensions");
+            }
+        }
+        if (len > 0) {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Checks the received content as a whole. Call this after the upload has
+     * finished.
+     *
+     * @throws ImageRejectedException
+     *             if the content was not a supported image or if it would
+     *             decompress into a disproportionately large bitmap
+     */
+    public void verify() throws ImageRejectedException {
+        if (!accepted) {
+            throw new ImageRejectedException("The file is not a supported image");
+        }
+        if ((long) width * height > bytesWritten * MAX_PIXELS_PER_BYTE) {
+            throw new ImageRejectedException("The image is suspiciously well compressed");
+        }
+    }
+
+    /**
+     * Tries to detect the image type and dimensions from the buffered header.
+     *
+     * @return <code>true</code> if detected, <code>false</code> if more data is
+     *         needed
+     * @throws ImageRejectedException
+     *             if the content is not a supported image
+     */
+    private boolean sniff() throws IOException {
+        if (jpeg) {
+            return sniffJpeg();
+        }
+        if (startsWith(PNG_SIGNATURE)) {
+            return sniffPng();
+        }
+        if (headerLength >= 3 && u8(0) == 0xff && u8(1) == 0xd8 && u8(2) == 0xff) {
+            jpeg = true;
+            markerPos = 2;
+            return sniffJpeg();
+        }
+        if (startsWith(ascii("GIF87a")) || startsWith(ascii("GIF89a"))) {
+            return sniffGif();
+        }
+        if (startsWith(ascii("RIFF"))) {
+            if (headerLength < 12) {
+                return false;
+            }
+            if (!matches(8, "WEBP")) {
+                throw new ImageRejectedException("The file is not a supported image");
+            }
+            return sniffWebp();
+        }
+        if (headerLength >= PNG_SIGNATURE.length) {
+            // long enough to have matched any of the signatures above
+            throw new ImageRejectedException("The file is not a supported image");
+        }
+        return false;
+    }
+
+    private boolean sniffPng() throws ImageRejectedException {
+        if (headerLength < 24) {
+            return false;
+        }
+        if (!matches(12, "IHDR")) {
+            throw new ImageRejectedException("Corrupted PNG image");
+        }
+        return detected("image/png", s32be(16), s32be(20));
+    }
+
+    private boolean sniffGif() throws ImageRejectedException {
+        if (headerLength < 10) {
+            return false;
+        }
+        return detected("image/gif", u16le(6), u16le(8));
+    }
+
+    private boolean sniffWebp() throws ImageRejectedException {
+        if (headerLength < 30) {
+            return false;
+        }
+        if (matches(12, "VP8 ")) {
+            // lossy: key frame start code followed by 14 bit dimensions
+            if (u8(23) != 0x9d || u8(24) != 0x01 || u8(25) != 0x2a) {
+                throw new ImageRejectedException("Corrupted WebP image");
+            }
+            return detected("image/webp", u16le(26) & 0x3fff, u16le(28) & 0x3fff);
+        }
+        if (matches(12, "VP8L")) {
+            // lossless: signature byte followed by 14 bit (dimension - 1) fields
+            if (u8(20) != 0x2f) {
+                throw new ImageRejectedException("Corrupted WebP image");
+            }
+            int bits = u8(21) | u8(22) << 8 | u8(23) << 16 | u8(24) << 24;
+            return detected("image/webp", (bits & 0x3fff) + 1, (bits >>> 14 & 0x3fff) + 1);
+        }
+        if (matches(12, "VP8X")) {
+            // extended: 24 bit (canvas dimension - 1) fields
+            return detected("image/webp", u24le(24) + 1, u24le(27) + 1);
+        }
+        throw new ImageRejectedException("Corrupted WebP image");
+    }
+
+    private boolean sniffJpeg() throws IOException {
+        // walk the marker segments until we find a start-of-frame
+        int pos = markerPos;
+        while (pos + 4 <= headerLength) {
+            if (u8(pos) != 0xff) {
+                throw new ImageRejectedException("Corrupted JPEG image");
+            }
+            int marker = u8(pos + 1);
+            if (marker == 0xff) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd8) {
+                // standalone markers without a length field
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xda || marker == 0xd9) {
+                throw new ImageRejectedException("Corrupted JPEG image");
+            }
+            if (isStartOfFrame(marker)) {
+                if (pos + 9 > headerLength) {
+                    break;
+                }
+                return detected("image/jpeg", u16be(pos + 7), u16be(pos + 5));
+            }
+            int length = u16be(pos + 2);
+            if (length < 2) {
+                throw new ImageRejectedException("Corrupted JPEG image");
+            }
+            pos += 2 + length;
+            if (pos > headerLength) {
+                // skip the rest of the segment as it streams by
+                skip = pos - headerLength;
+                pos = headerLength;
+                break;
+            }
+        }
+
+        // pass on what we've walked past to make room for the next marker
+        out.write(header, 0, pos);
+        System.arraycopy(header, pos, header, 0, headerLength - pos);
+        headerLength -= pos;
+        markerPos = 0;
+        return false;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private boolean detected(String mimeType, int width, int height) {
+        this.mimeType = mimeType;
+        this.width = width;
+        this.height = height;
+        return true;
+    }
+
+    private void checkDimensions() throws ImageRejectedException {
+        if (width <= 0 || height <= 0) {
+            throw new ImageRejectedException("The image has no content");
+        }
+        if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new ImageRejectedException(String.format("The image is too large, maximum size is %1$dx%1$d pixels",
+                    MAX_DIMENSION));
+        }
+    }
+
+    /**
+     * Checks if the header starts with the given signature. A header shorter than
+     * the signature matches if it is a prefix of it, as more data may follow.
+     */
+    private boolean startsWith(byte[] signature) {
+        int n = Math.min(signature.length, headerLength);
+        return n > 0 && Arrays.equals(header, 0, n, signature, 0, n);
+    }
+
+    private boolean matches(int offset, String text) {
+        byte[] bytes = ascii(text);
+        return Arrays.equals(header, offset, offset + bytes.length, bytes, 0, bytes.length);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private int u8(int offset) {
+        return header[offset] & 0xff;
+    }
+
+    private int u16be(int offset) {
+        return u8(offset) << 8 | u8(offset + 1);
+    }
+
+    private int u16le(int offset) {
+        return u8(offset) | u8(offset + 1) << 8;
+    }
+
+    private int u24le(int offset) {
+        return u8(offset) | u8(offset + 1) << 8 | u8(offset + 2) << 16;
+    }
+
+    private int s32be(int offset) {
+        // PNG dimensions are unsigned 31 bit values; anything negative is bogus
+        // and gets rejected by checkDimensions()
+        return u16be(offset) << 16 | u16be(offset + 2);
+    }
+
+    /**
+     * Thrown when the uploaded content is not an image we accept. The message is
+     * meant to be shown to the user.
+     */
+    public static class ImageRejectedException extends IOException {
+        public ImageRejectedException(String msg) {
+            super(msg);
+        }
+    }
+}
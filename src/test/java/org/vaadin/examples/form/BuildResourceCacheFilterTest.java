@@ -0,0 +1,81 @@
+package org.vaadin.examples.form;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.util.List;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class BuildResourceCacheFilterTest {
+
+    /**
+     * Sets the kind of headers a static file server would.
+     */
+    private static final HttpServlet STATIC_FILE_SERVER = new HttpServlet() {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.setHeader("Cache-Control", "max-age=3600");
+            resp.addHeader("Cache-Control", "must-revalidate");
+            resp.setDateHeader("Expires", 0);
+            resp.addDateHeader("Expires", 0);
+            resp.setIntHeader("Expires", 0);
+            resp.addHeader("Vary", "Accept-Encoding");
+            resp.setHeader("Content-Encoding", "br");
+            resp.getOutputStream().write(new byte[] { 1, 2, 3 });
+        }
+    };
+
+    /**
+     * Responds like a static file server that doesn't have the file.
+     */
+    private static final HttpServlet MISSING_FILE = new HttpServlet() {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    };
+
+    @Test
+    void hashedFileIsCachedForAYear() throws ServletException, IOException {
+        MockHttpServletResponse response = get("/VAADIN/build/indexhtml-DnLi9wtj.js", STATIC_FILE_SERVER);
+
+        assertEquals(List.of(BuildResourceCacheFilter.CACHE_CONTROL), response.getHeaders("Cache-Control"));
+        assertFalse(response.containsHeader("Expires"));
+        assertEquals(List.of("Accept-Encoding"), response.getHeaders("Vary"));
+        assertEquals("br", response.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    void missingFileIsNotCached() throws ServletException, IOException {
+        MockHttpServletResponse response = get("/VAADIN/build/indexhtml-DnLi9wtj.js", MISSING_FILE);
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertEquals(List.of("no-cache"), response.getHeaders("Cache-Control"));
+        assertFalse(response.containsHeader("Vary"));
+    }
+
+    @Test
+    void otherFilesAreLeftAlone() throws ServletException, IOException {
+        MockHttpServletResponse response = get("/VAADIN/build/sw.js", STATIC_FILE_SERVER);
+
+        assertEquals(List.of("max-age=3600", "must-revalidate"), response.getHeaders("Cache-Control"));
+    }
+
+    private static MockHttpServletResponse get(String uri, HttpServlet servlet) throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new BuildResourceCacheFilter().doFilter(request, response, new MockFilterChain(servlet));
+        return response;
+    }
+}
@@ -0,0 +1,89 @@
+package org.vaadin.examples.form.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.vaadin.examples.form.data.UserDetailsService.ServiceException;
+import org.vaadin.examples.form.outbox.OutboxLog;
+
+class UserDetailsServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storeAppendsSignupEvent() throws Exception {
+        try (AnnotationConfigApplicationContext context = createContext()) {
+            UserDetailsService service = context.getBean(UserDetailsService.class);
+
+            storeTwice(service, userDetails("alice"));
+
+            OutboxLog outbox = context.getBean(OutboxLog.class);
+            assertEquals("alice", outbox.read(0, 10).get(0).getEvent().getHandle());
+        }
+    }
+
+    @Test
+    void worksAfterSessionSerialization() throws Exception {
+        try (AnnotationConfigApplicationContext context = createContext()) {
+            UserDetailsService service = serializeAndDeserialize(context.getBean(UserDetailsService.class));
+
+            storeTwice(service, userDetails("bob"));
+
+            OutboxLog outbox = context.getBean(OutboxLog.class);
+            assertEquals("bob", outbox.read(0, 10).get(0).getEvent().getHandle());
+        }
+    }
+
+    /**
+     * The first store of a handle always fails on purpose, see
+     * {@link UserDetailsService#store(UserDetails)}.
+     */
+    private static void storeTwice(UserDetailsService service, UserDetails userDetails) throws ServiceException {
+        assertThrows(ServiceException.class, () -> service.store(userDetails));
+        service.store(userDetails);
+    }
+
+    private AnnotationConfigApplicationContext createContext() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.registerBean(OutboxLog.class, () -> {
+            try {
+                return new OutboxLog(directory.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        context.register(UserDetailsService.class);
+        context.refresh();
+        return context;
+    }
+
+    private static UserDetails userDetails(String handle) {
+        UserDetails userDetails = new UserDetails();
+        userDetails.setHandle(handle);
+        userDetails.setEmail(handle + "@example.com");
+        return userDetails;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T serializeAndDeserialize(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+}
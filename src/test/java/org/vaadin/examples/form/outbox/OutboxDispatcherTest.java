@@ -0,0 +1,218 @@
+package org.vaadin.examples.form.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.vaadin.examples.form.outbox.OutboxLogTest.event;
+import static org.vaadin.examples.form.outbox.OutboxLogTest.handles;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutboxDispatcherTest {
+
+    @TempDir
+    Path directory;
+
+    private OutboxLog log;
+    private final TestClock clock = new TestClock();
+    private final RecordingConsumer consumer = new RecordingConsumer();
+    private OutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        log = new OutboxLog(directory, 200);
+        dispatcher = new OutboxDispatcher(log, List.of(consumer), clock);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        log.close();
+    }
+
+    @Test
+    void deliversInBatchesAndMovesCheckpoint() throws IOException {
+        appendEvents(OutboxDispatcher.BATCH_SIZE + 5);
+
+        dispatcher.dispatch();
+
+        assertEquals(List.of(OutboxDispatcher.BATCH_SIZE, 5), consumer.batchSizes);
+        assertEquals(OutboxDispatcher.BATCH_SIZE + 5, log.readCheckpoint(consumer.getName()));
+    }
+
+    @Test
+    void resumesFromCheckpointAfterRestart() throws IOException {
+        appendEvents(3);
+        dispatcher.dispatch();
+        log.close();
+
+        log = new OutboxLog(directory, 200);
+        log.append(event("after"));
+        RecordingConsumer restarted = new RecordingConsumer();
+        new OutboxDispatcher(log, List.of(restarted), clock).dispatch();
+
+        assertEquals(List.of("after"), restarted.delivered);
+    }
+
+    @Test
+    void retriesWithBackoff() throws IOException {
+        appendEvents(3);
+        consumer.failures = 2;
+
+        dispatcher.dispatch();
+        assertEquals(1, consumer.calls);
+
+        // not before the backoff has passed
+        dispatcher.dispatch();
+        assertEquals(1, consumer.calls);
+
+        clock.advance(OutboxDispatcher.backoff(1));
+        dispatcher.dispatch();
+        assertEquals(2, consumer.calls);
+        assertTrue(consumer.delivered.isEmpty());
+
+        clock.advance(OutboxDispatcher.backoff(2));
+        dispatcher.dispatch();
+        assertEquals(List.of("user0", "user1", "user2"), consumer.delivered);
+        assertEquals(3, log.readCheckpoint(consumer.getName()));
+        assertEquals(0, log.readState(consumer.getName(), OutboxDispatcher.FAILED_ATTEMPTS));
+    }
+
+    @Test
+    void backoffDoublesUpToMaximum() {
+        assertEquals(Duration.ofSeconds(1), OutboxDispatcher.backoff(1));
+        assertEquals(Duration.ofSeconds(2), OutboxDispatcher.backoff(2));
+        assertEquals(Duration.ofSeconds(4), OutboxDispatcher.backoff(3));
+        assertEquals(OutboxDispatcher.MAX_BACKOFF, OutboxDispatcher.backoff(20));
+        assertEquals(OutboxDispatcher.MAX_BACKOFF, OutboxDispatcher.backoff(100));
+    }
+
+    @Test
+    void failedAttemptsSurviveRestart() throws IOException {
+        appendEvents(1);
+        consumer.failures = Integer.MAX_VALUE;
+        dispatcher.dispatch();
+        clock.advance(OutboxDispatcher.MAX_BACKOFF);
+        dispatcher.dispatch();
+
+        assertEquals(2, log.readState(consumer.getName(), OutboxDispatcher.FAILED_ATTEMPTS));
+    }
+
+    @Test
+    void brokenEventIsIsolatedAndDeadLettered() throws Exception {
+        appendEvents(5);
+        consumer.rejects = e -> e.getHandle().equals("user2");
+
+        // fail the batch, then every single attempt at user2
+        retryUntilIdle(2 * OutboxDispatcher.MAX_ATTEMPTS + 5);
+
+        assertEquals(List.of("user0", "user1", "user3", "user4"), consumer.delivered);
+        assertEquals(5, log.readCheckpoint(consumer.getName()));
+        assertEquals(0, log.readState(consumer.getName(), OutboxDispatcher.ISOLATE_UNTIL));
+        assertEquals(List.of("user2"), handles(log.readDeadLetters(consumer.getName())));
+
+        // back to batches for new events
+        log.append(event("new0"));
+        log.append(event("new1"));
+        log.append(event("new2"));
+        consumer.batchSizes.clear();
+        dispatcher.dispatch();
+        assertEquals(List.of(3), consumer.batchSizes);
+
+        // the problem is fixed
+        consumer.rejects = e -> false;
+        dispatcher.replayDeadLetters(consumer.getName());
+        assertEquals("user2", consumer.delivered.get(consumer.delivered.size() - 1));
+        assertTrue(log.readDeadLetters(consumer.getName()).isEmpty());
+    }
+
+    @Test
+    void healthyEventsAreNotDeadLetteredAfterOutage() throws IOException {
+        appendEvents(5);
+        consumer.failures = OutboxDispatcher.MAX_ATTEMPTS + 2;
+
+        retryUntilIdle(2 * OutboxDispatcher.MAX_ATTEMPTS + 5);
+
+        assertEquals(List.of("user0", "user1", "user2", "user3", "user4"), consumer.delivered);
+        assertTrue(log.readDeadLetters(consumer.getName()).isEmpty());
+        assertEquals(0, log.readState(consumer.getName(), OutboxDispatcher.ISOLATE_UNTIL));
+    }
+
+    private void retryUntilIdle(int runs) {
+        for (int i = 0; i < runs; i++) {
+            dispatcher.dispatch();
+            clock.advance(OutboxDispatcher.MAX_BACKOFF);
+        }
+    }
+
+    private void appendEvents(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(event("user" + i));
+        }
+    }
+
+    private static class RecordingConsumer implements OutboxConsumer {
+
+        private final List<String> delivered = new ArrayList<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private int calls;
+        private int failures;
+        private Predicate<SignupEvent> rejects = e -> false;
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void accept(List<SignupEvent> events) throws Exception {
+            calls++;
+            if (failures > 0) {
+                failures--;
+                throw new Exception("Backend not available");
+            }
+            if (events.stream().anyMatch(rejects)) {
+                throw new Exception("Broken event");
+            }
+            batchSizes.add(events.size());
+            delivered.addAll(events.stream().map(SignupEvent::getHandle).collect(Collectors.toList()));
+        }
+    }
+
+    private static class TestClock extends Clock {
+
+        private Instant now = Instant.ofEpochMilli(0);
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.vaadin.examples.form.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutboxLogTest {
+
+    /**
+     * Small enough for a few events per segment.
+     */
+    private static final long SEGMENT_SIZE = 200;
+
+    @TempDir
+    Path directory;
+
+    private OutboxLog log;
+
+    @AfterEach
+    void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    void appendAssignsIncreasingOffsets() throws IOException {
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        assertEquals(0, log.append(event("first")));
+        assertEquals(1, log.append(event("second")));
+
+        assertEquals(List.of("first", "second"), handles(log.read(0, 10)));
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    void segmentsRollOver() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(25);
+
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 1);
+        for (Path segment : segments.subList(0, segments.size() - 1)) {
+            assertTrue(Files.size(segment) <= SEGMENT_SIZE);
+        }
+    }
+
+    @Test
+    void readAcrossSegmentBoundaries() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(25);
+
+        List<OutboxRecord> records = log.read(3, 15);
+        assertEquals(15, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(3 + i, records.get(i).getOffset());
+            assertEquals("user" + (3 + i), records.get(i).getEvent().getHandle());
+        }
+
+        assertEquals(List.of("user24"), handles(log.read(24, 10)));
+        assertTrue(log.read(25, 10).isEmpty());
+    }
+
+    @Test
+    void recoverCutsOffTornTailRecord() throws IOException {
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        appendEvents(3);
+        log.close();
+
+        // a record header promising more bytes than were written
+        Path segment = segments().get(0);
+        long validSize = Files.size(segment);
+        Files.write(segment, new byte[] { 0, 0, 0, 50, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        assertEquals(validSize, Files.size(segment));
+        assertEquals(3, log.append(event("after")));
+        assertEquals(List.of("user2", "after"), handles(log.read(2, 10)));
+    }
+
+    @Test
+    void recoverCutsOffZeroFilledTail() throws IOException {
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        appendEvents(3);
+        log.close();
+
+        Files.write(segments().get(0), new byte[64], StandardOpenOption.APPEND);
+
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        assertEquals(3, log.append(event("after")));
+    }
+
+    @Test
+    void recoverRefusesToDropRecordsAfterCorruption() throws IOException {
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        appendEvents(3);
+        log.close();
+        log = null;
+
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        corruptByte(segment, 10);
+
+        assertThrows(IOException.class, () -> new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE));
+        assertEquals(size, Files.size(segment));
+    }
+
+    @Test
+    void readFailsOnCorruptedRecord() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(25);
+
+        corruptByte(segments().get(0), 10);
+
+        assertThrows(IOException.class, () -> log.read(0, 10));
+    }
+
+    @Test
+    void failedAppendIsRolledBack() throws IOException {
+        FailingChannel[] channel = new FailingChannel[1];
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE) {
+            @Override
+            FileChannel openChannel(Path path) throws IOException {
+                channel[0] = new FailingChannel(super.openChannel(path));
+                return channel[0];
+            }
+        };
+        appendEvents(2);
+        long size = Files.size(segments().get(0));
+
+        // the record is written, but it can't be confirmed to be on disk
+        channel[0].failForce = true;
+        assertThrows(IOException.class, () -> log.append(event("failed")));
+        assertEquals(size, Files.size(segments().get(0)));
+
+        channel[0].failForce = false;
+        assertEquals(2, log.append(event("after")));
+        assertEquals(List.of("user0", "user1", "after"), handles(log.read(0, 10)));
+
+        log.close();
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        assertEquals(3, log.append(event("restarted")));
+    }
+
+    @Test
+    void checkpointSurvivesRestart() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(10);
+        assertEquals(0, log.readCheckpoint("consumer"));
+        log.writeCheckpoint("consumer", 7);
+        log.close();
+
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        long checkpoint = log.readCheckpoint("consumer");
+        assertEquals(7, checkpoint);
+        assertEquals(List.of("user7", "user8", "user9"), handles(log.read(checkpoint, 10)));
+        assertEquals(10, log.append(event("after")));
+    }
+
+    @Test
+    void deleteBeforeKeepsActiveSegment() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(25);
+        List<Path> segments = segments();
+
+        log.deleteBefore(Long.MAX_VALUE);
+
+        assertEquals(List.of(segments.get(segments.size() - 1)), segments());
+        assertEquals(1, log.read(24, 10).size());
+    }
+
+    @Test
+    void deleteBeforeKeepsSegmentsWithPendingRecords() throws IOException {
+        log = new OutboxLog(directory, SEGMENT_SIZE);
+        appendEvents(25);
+
+        log.deleteBefore(12);
+
+        List<OutboxRecord> records = log.read(12, 100);
+        assertEquals(12, records.get(0).getOffset());
+        assertEquals(13, records.size());
+    }
+
+    @Test
+    void deadLetters() throws IOException {
+        log = new OutboxLog(directory, OutboxLog.DEFAULT_SEGMENT_SIZE);
+        log.appendDeadLetter("consumer", new OutboxRecord(4, event("four")));
+        log.appendDeadLetter("consumer", new OutboxRecord(9, event("nine")));
+
+        List<OutboxRecord> deadLetters = log.readDeadLetters("consumer");
+        assertEquals(List.of(4L, 9L), deadLetters.stream().map(OutboxRecord::getOffset).collect(Collectors.toList()));
+        assertEquals(List.of("four", "nine"), handles(deadLetters));
+        assertTrue(log.read(0, 10).isEmpty());
+
+        log.deleteDeadLetters("consumer");
+        assertTrue(log.readDeadLetters("consumer").isEmpty());
+    }
+
+    private void appendEvents(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(event("user" + i));
+        }
+    }
+
+    static SignupEvent event(String handle) {
+        return new SignupEvent(Instant.ofEpochMilli(0), handle, "First", null, handle + "@example.com", true);
+    }
+
+    static List<String> handles(List<OutboxRecord> records) {
+        return records.stream().map(r -> r.getEvent().getHandle()).collect(Collectors.toList());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Delegates to a real channel, but can be told to fail when forcing the
+     * written data to disk.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private boolean failForce;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                throw new IOException("Simulated I/O error");
+            }
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void corruptByte(Path file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.vaadin.examples.form.ui.components;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.vaadin.examples.form.ui.components.ImageSniffingOutputStream.ImageRejectedException;
+
+class ImageSniffingOutputStreamTest {
+
+    private final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    private final ImageSniffingOutputStream stream = new ImageSniffingOutputStream(target);
+
+    @Test
+    void png() throws IOException {
+        assertAccepted(encode("png", 123, 45), "image/png", 123, 45);
+    }
+
+    @Test
+    void jpeg() throws IOException {
+        assertAccepted(encode("jpg", 123, 45), "image/jpeg", 123, 45);
+    }
+
+    @Test
+    void gif() throws IOException {
+        assertAccepted(encode("gif", 123, 45), "image/gif", 123, 45);
+    }
+
+    @Test
+    void jpegWithFrameHeaderAfterLargeExif() throws IOException {
+        byte[] jpeg = encode("jpg", 123, 45);
+
+        // insert a ~60 KB APP1 (EXIF) segment right after the SOI marker
+        int exifLength = 60 * 1024;
+        ByteBuffer image = ByteBuffer.allocate(jpeg.length + 2 + exifLength);
+        image.put(jpeg, 0, 2);
+        image.put((byte) 0xff).put((byte) 0xe1).putShort((short) exifLength);
+        image.put(new byte[exifLength - 2]);
+        image.put(jpeg, 2, jpeg.length - 2);
+
+        assertAccepted(image.array(), "image/jpeg", 123, 45);
+    }
+
+    @Test
+    void jpegWithFrameHeaderAfterExifAndXmp() throws IOException {
+        byte[] jpeg = encode("jpg", 123, 45);
+
+        // two segments of the maximum size (64 KB) right after the SOI marker
+        int segmentLength = 0xffff;
+        ByteBuffer image = ByteBuffer.allocate(jpeg.length + 2 * (2 + segmentLength));
+        image.put(jpeg, 0, 2);
+        image.put((byte) 0xff).put((byte) 0xe1).putShort((short) segmentLength);
+        image.put(new byte[segmentLength - 2]);
+        image.put((byte) 0xff).put((byte) 0xe1).putShort((short) segmentLength);
+        image.put(new byte[segmentLength - 2]);
+        int frameStart = image.position();
+        image.put(jpeg, 2, jpeg.length - 2);
+
+        // the segments are passed on as they stream by instead of being buffered
+        stream.write(image.array(), 0, frameStart);
+        assertNull(stream.getMimeType());
+        assertEquals(frameStart, target.size());
+        stream.write(image.array(), frameStart, image.capacity() - frameStart);
+        stream.verify();
+
+        assertEquals("image/jpeg", stream.getMimeType());
+        assertEquals(123, stream.getWidth());
+        assertEquals(45, stream.getHeight());
+        assertArrayEquals(image.array(), target.toByteArray());
+    }
+
+    @Test
+    void lossyWebp() throws IOException {
+        ByteBuffer chunk = webp("VP8 ");
+        chunk.put(new byte[] { 0x10, 0x02, 0x00 }); // frame tag
+        chunk.put(new byte[] { (byte) 0x9d, 0x01, 0x2a }); // start code
+        chunk.putShort((short) 320).putShort((short) 200);
+
+        assertAccepted(chunk.array(), "image/webp", 320, 200);
+    }
+
+    @Test
+    void losslessWebp() throws IOException {
+        ByteBuffer chunk = webp("VP8L");
+        chunk.put((byte) 0x2f);
+        chunk.putInt((320 - 1) | (200 - 1) << 14);
+
+        assertAccepted(chunk.array(), "image/webp", 320, 200);
+    }
+
+    @Test
+    void extendedWebp() throws IOException {
+        ByteBuffer chunk = webp("VP8X");
+        chunk.putInt(0); // flags and reserved bytes
+        putUInt24(chunk, 3000 - 1);
+        putUInt24(chunk, 2000 - 1);
+
+        assertAccepted(chunk.array(), "image/webp", 3000, 2000);
+    }
+
+    @Test
+    void plainTextIsRejected() {
+        assertThrows(ImageRejectedException.class,
+                () -> stream.write("<html><body>not an image</body></html>".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    void webpContainerWithUnknownChunkIsRejected() {
+        ByteBuffer chunk = webp("ABCD");
+        assertThrows(ImageRejectedException.class, () -> stream.write(chunk.array()));
+    }
+
+    @Test
+    void truncatedHeaderIsNotAccepted() throws IOException {
+        byte[] png = encode("png", 123, 45);
+
+        // not enough bytes to find the dimensions, but no reason to abort yet
+        stream.write(png, 0, 20);
+        assertNull(stream.getMimeType());
+        assertEquals(0, target.size());
+
+        assertThrows(ImageRejectedException.class, stream::verify);
+    }
+
+    @Test
+    void truncatedJpegSegmentsAreNotAccepted() throws IOException {
+        byte[] jpeg = encode("jpg", 123, 45);
+
+        stream.write(jpeg, 0, 30);
+        assertNull(stream.getMimeType());
+
+        assertThrows(ImageRejectedException.class, stream::verify);
+    }
+
+    @Test
+    void oversizedDimensionIsRejected() throws IOException {
+        byte[] png = encode("png", ImageSniffingOutputStream.MAX_DIMENSION + 1, 10);
+        assertThrows(ImageRejectedException.class, () -> stream.write(png));
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    void decompressionBombIsRejected() throws IOException {
+        BufferedImage image = new BufferedImage(4096, 4096, BufferedImage.TYPE_BYTE_BINARY);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        stream.write(png.toByteArray());
+        assertThrows(ImageRejectedException.class, stream::verify);
+    }
+
+    /**
+     * Writes the image in small chunks, like a network upload would, and checks
+     * the result.
+     */
+    private void assertAccepted(byte[] image, String mimeType, int width, int height) throws IOException {
+        for (int i = 0; i < image.length; i += 7) {
+            stream.write(image, i, Math.min(7, image.length - i));
+        }
+        stream.verify();
+
+        assertEquals(mimeType, stream.getMimeType());
+        assertEquals(width, stream.getWidth());
+        assertEquals(height, stream.getHeight());
+        assertArrayEquals(image, target.toByteArray());
+    }
+
+    private static byte[] encode(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, x * y * 997);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a buffer with the RIFF header and the given chunk type, positioned
+     * at the start of the chunk data. The rest is padding that stands in for the
+     * compressed image data.
+     */
+    private static ByteBuffer webp(String chunkType) {
+        int size = 8 * 1024;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(size - 8);
+        buffer.put("WEBP".getBytes(StandardCharsets.US_ASCII));
+        buffer.put(chunkType.getBytes(StandardCharsets.US_ASCII)).putInt(size - 20);
+        return buffer;
+    }
+
+    private static void putUInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+    }
+}